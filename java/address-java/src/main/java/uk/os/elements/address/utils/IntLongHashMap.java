@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 Ordnance Survey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.os.elements.address.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from non-negative int keys to long values.
+ *
+ * <p>
+ * Keys and values are held in parallel primitive arrays and collisions are resolved by linear probing, so
+ * accumulating into the map never boxes or allocates unless the table needs to grow.
+ */
+final class IntLongHashMap {
+
+    static final int EMPTY = -1;
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private int[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+
+    IntLongHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expected number of keys the map should hold before growing
+     */
+    IntLongHashMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected, 2) * 2 - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Add delta to the value held for key, starting from zero if the key is absent.
+     * @param key non-negative key
+     * @param delta amount to add
+     */
+    void add(int key, long delta) {
+        int slot = hash(key) & mask;
+        while (true) {
+            int existing = keys[slot];
+            if (existing == key) {
+                values[slot] += delta;
+                return;
+            }
+            if (existing == EMPTY) {
+                keys[slot] = key;
+                values[slot] = delta;
+                if (++size * 4 > keys.length * 3) {
+                    grow();
+                }
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @param key non-negative key
+     * @return the value held for key, or zero if absent
+     */
+    long get(int key) {
+        int slot = hash(key) & mask;
+        while (true) {
+            int existing = keys[slot];
+            if (existing == key) {
+                return values[slot];
+            }
+            if (existing == EMPTY) {
+                return 0L;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Add every entry of other into this map.
+     * @param other map to merge from; left unchanged
+     */
+    void addAll(IntLongHashMap other) {
+        for (int slot = 0; slot < other.keys.length; slot++) {
+            if (other.keys[slot] != EMPTY) {
+                add(other.keys[slot], other.values[slot]);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Slots run from zero to capacity - 1; unused slots report {@link #EMPTY} from {@link #keyAt(int)}.
+     * @return number of slots in the table
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    long valueAt(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * @return the keys present in ascending order
+     */
+    int[] sortedKeys() {
+        int[] result = new int[size];
+        int i = 0;
+        for (int key : keys) {
+            if (key != EMPTY) {
+                result[i++] = key;
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(oldKeys.length << 1);
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != EMPTY) {
+                insertNew(oldKeys[slot], oldValues[slot]);
+            }
+        }
+    }
+
+    private void insertNew(int key, long value) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new long[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
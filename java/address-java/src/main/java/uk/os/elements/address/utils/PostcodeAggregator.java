@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2016 Ordnance Survey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.os.elements.address.utils;
+
+/**
+ * Accumulate counts or sums per postcode area, district and sector over a stream of postcodes.
+ *
+ * <p>
+ * Postcodes are parsed in place from any {@link CharSequence} (or a range of one, such as a field within a line)
+ * and reduced to an int key, so no substrings are created and nothing is boxed while records are added:
+ *
+ * <ul>
+ * <li>areas are held in a dense array indexed by their one or two letters
+ * <li>districts and sectors are held in primitive open-addressing tables
+ * </ul>
+ *
+ * <p>
+ * Each record is stored against the most precise level it carries; a unit postcode such as 'PO1 1AF' is
+ * recorded against its sector 'PO1 1'. Area totals are kept running as records are added, while district
+ * totals are rolled up from their sectors on demand.
+ *
+ * <p>
+ * Parsing mirrors the checks in {@link PostcodeUtil}: case and surrounding whitespace are ignored, the area must
+ * be a known postcode area and a unit postcode may omit the space before its inward code. A sector must be
+ * separated from its district by a single space, as 'PO11' is read as a district.
+ *
+ * <p>
+ * Instances are not thread safe. Parallel workers should each fill their own aggregator and combine them
+ * with {@link #merge(PostcodeAggregator)}.
+ */
+public final class PostcodeAggregator {
+
+    /**
+     * Receives a rolled up total for each postcode at one level.
+     */
+    public interface Visitor {
+        /**
+         * @param postcode area, district or sector postcode, such as 'PO', 'PO1' or 'PO1 1'
+         * @param total count or sum for the postcode including all of its finer levels
+         */
+        void visit(String postcode, long total);
+    }
+
+    private static final int LETTERS = 26;
+    // area index: first letter * 27 + (second letter + 1, or 0 when absent)
+    private static final int AREA_KEYS = LETTERS * (LETTERS + 1);
+    // district suffix: first digit * 37 + (0 when absent, 1 + digit, or 11 + letter)
+    private static final int DISTRICT_SUFFIXES = 10 * (1 + 10 + LETTERS);
+    private static final int SECTORS_PER_DISTRICT = 10;
+
+    private static final int INVALID = -1;
+    private static final int AREA = 1;
+    private static final int DISTRICT = 2;
+    private static final int SECTOR = 3;
+    private static final int LEVEL_BITS = 2;
+    private static final int LEVEL_MASK = (1 << LEVEL_BITS) - 1;
+
+    private static final boolean[] KNOWN_AREAS = getKnownAreas();
+
+    // rolled up totals, including every district and sector within the area
+    private final long[] areas = new long[AREA_KEYS];
+    private final IntLongHashMap districts = new IntLongHashMap(1 << 10);
+    private final IntLongHashMap sectors = new IntLongHashMap(1 << 12);
+
+    /**
+     * Count a single record for the postcode.
+     * @param postcode area, district, sector or unit postcode
+     * @return true if the postcode was recognised and counted
+     */
+    public boolean add(CharSequence postcode) {
+        return add(postcode, 0, postcode.length(), 1L);
+    }
+
+    /**
+     * Add amount to the total for the postcode.
+     * @param postcode area, district, sector or unit postcode
+     * @param amount value to accumulate
+     * @return true if the postcode was recognised and added
+     */
+    public boolean add(CharSequence postcode, long amount) {
+        return add(postcode, 0, postcode.length(), amount);
+    }
+
+    /**
+     * Add amount to the total for the postcode found between start (inclusive) and end (exclusive).
+     * @param text text holding the postcode, such as a line from a delimited file
+     * @param start index of the first character of the postcode
+     * @param end index after the last character of the postcode
+     * @param amount value to accumulate
+     * @return true if the postcode was recognised and added
+     * @throws IndexOutOfBoundsException if start or end are negative, end is greater than text.length(),
+     *         or start is greater than end
+     */
+    public boolean add(CharSequence text, int start, int end, long amount) {
+        if (start < 0 || end > text.length() || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + text.length());
+        }
+        int parsed = parse(text, start, end, true);
+        if (parsed == INVALID) {
+            return false;
+        }
+        int key = parsed >>> LEVEL_BITS;
+        switch (parsed & LEVEL_MASK) {
+            case SECTOR:
+                sectors.add(key, amount);
+                areas[key / (DISTRICT_SUFFIXES * SECTORS_PER_DISTRICT)] += amount;
+                break;
+            case DISTRICT:
+                districts.add(key, amount);
+                areas[key / DISTRICT_SUFFIXES] += amount;
+                break;
+            default:
+                areas[key] += amount;
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Fold the totals of another aggregator, such as one filled by a parallel worker, into this one.
+     * @param other aggregator to merge from; left unchanged
+     */
+    public void merge(PostcodeAggregator other) {
+        for (int i = 0; i < AREA_KEYS; i++) {
+            areas[i] += other.areas[i];
+        }
+        districts.addAll(other.districts);
+        sectors.addAll(other.sectors);
+    }
+
+    /**
+     * @return the total across every postcode added
+     */
+    public long total() {
+        long total = 0L;
+        for (long area : areas) {
+            total += area;
+        }
+        return total;
+    }
+
+    /**
+     * Total for an area, district or sector postcode including all of its finer levels.
+     * @param postcode area, district or sector postcode, such as 'PO', 'PO1' or 'PO1 1'
+     * @return rolled up total, or zero if nothing was added for the postcode
+     * @throws IllegalArgumentException if the value is not an area, district or sector postcode
+     */
+    public long total(CharSequence postcode) {
+        int parsed = parse(postcode, 0, postcode.length(), false);
+        if (parsed == INVALID) {
+            throw new IllegalArgumentException("not an area, district or sector postcode: " + postcode);
+        }
+        int key = parsed >>> LEVEL_BITS;
+        switch (parsed & LEVEL_MASK) {
+            case SECTOR:
+                return sectors.get(key);
+            case DISTRICT:
+                return districtTotal(key);
+            default:
+                return areas[key];
+        }
+    }
+
+    /**
+     * Visit the rolled up total of every area with a non-zero total, in ascending order of area.
+     * @param visitor receives each area and its total
+     */
+    public void visitAreas(Visitor visitor) {
+        StringBuilder builder = new StringBuilder(2);
+        for (int key = 0; key < AREA_KEYS; key++) {
+            if (areas[key] != 0L) {
+                builder.setLength(0);
+                visitor.visit(appendArea(builder, key).toString(), areas[key]);
+            }
+        }
+    }
+
+    /**
+     * Visit the rolled up total of every district with a non-zero total, in ascending order of district.
+     * @param visitor receives each district and its total
+     */
+    public void visitDistricts(Visitor visitor) {
+        IntLongHashMap totals = new IntLongHashMap(districts.size() + sectors.size() / SECTORS_PER_DISTRICT);
+        totals.addAll(districts);
+        for (int slot = 0; slot < sectors.capacity(); slot++) {
+            int key = sectors.keyAt(slot);
+            if (key != IntLongHashMap.EMPTY) {
+                totals.add(key / SECTORS_PER_DISTRICT, sectors.valueAt(slot));
+            }
+        }
+        StringBuilder builder = new StringBuilder(4);
+        for (int key : totals.sortedKeys()) {
+            long total = totals.get(key);
+            if (total != 0L) {
+                builder.setLength(0);
+                visitor.visit(appendDistrict(builder, key).toString(), total);
+            }
+        }
+    }
+
+    /**
+     * Visit the total of every sector with a non-zero total, including unit postcodes within it, in ascending
+     * order of sector.
+     * @param visitor receives each sector and its total
+     */
+    public void visitSectors(Visitor visitor) {
+        StringBuilder builder = new StringBuilder(6);
+        for (int key : sectors.sortedKeys()) {
+            long total = sectors.get(key);
+            if (total != 0L) {
+                builder.setLength(0);
+                appendDistrict(builder, key / SECTORS_PER_DISTRICT).append(' ').append(key % SECTORS_PER_DISTRICT);
+                visitor.visit(builder.toString(), total);
+            }
+        }
+    }
+
+    private long districtTotal(int district) {
+        long total = districts.get(district);
+        for (int sector = 0; sector < SECTORS_PER_DISTRICT; sector++) {
+            total += sectors.get(district * SECTORS_PER_DISTRICT + sector);
+        }
+        return total;
+    }
+
+    /**
+     * @return the level in the low bits and the level's key above them, or INVALID
+     */
+    private static int parse(CharSequence text, int start, int end, boolean allowUnit) {
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        // split the outward code from the sector digit, if any
+        int outwardEnd = end;
+        int sector = -1;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == ' ') {
+                int inward = end - i - 1;
+                if (inward == 3 && allowUnit && isUnit(text, end - 2)) {
+                    inward = 1;
+                }
+                if (inward != 1 || !isDigit(text.charAt(i + 1))) {
+                    return INVALID;
+                }
+                outwardEnd = i;
+                sector = text.charAt(i + 1) - '0';
+                break;
+            }
+        }
+        if (sector < 0 && allowUnit && end - start >= 5 && isDigit(text.charAt(end - 3)) && isUnit(text, end - 2)) {
+            outwardEnd = end - 3;
+            sector = text.charAt(end - 3) - '0';
+        }
+
+        // area: one or two letters
+        int i = start;
+        if (i == outwardEnd || !isLetter(text.charAt(i))) {
+            return INVALID;
+        }
+        int area = (upper(text.charAt(i++)) - 'A') * (LETTERS + 1);
+        if (i < outwardEnd && isLetter(text.charAt(i))) {
+            area += upper(text.charAt(i++)) - 'A' + 1;
+        }
+        if (!KNOWN_AREAS[area]) {
+            return INVALID;
+        }
+        if (i == outwardEnd) {
+            return sector < 0 ? area << LEVEL_BITS | AREA : INVALID;
+        }
+
+        // district: a digit, optionally followed by a digit or letter
+        char c = text.charAt(i++);
+        if (!isDigit(c)) {
+            return INVALID;
+        }
+        int suffix = (c - '0') * (1 + 10 + LETTERS);
+        if (i < outwardEnd) {
+            c = upper(text.charAt(i++));
+            if (isDigit(c)) {
+                suffix += 1 + c - '0';
+            } else if (isDistrictLetter(c)) {
+                suffix += 1 + 10 + c - 'A';
+            } else {
+                return INVALID;
+            }
+        }
+        if (i != outwardEnd) {
+            return INVALID;
+        }
+        int district = area * DISTRICT_SUFFIXES + suffix;
+        if (sector < 0) {
+            return district << LEVEL_BITS | DISTRICT;
+        }
+        return (district * SECTORS_PER_DISTRICT + sector) << LEVEL_BITS | SECTOR;
+    }
+
+    private static boolean isUnit(CharSequence text, int index) {
+        return isUnitLetter(upper(text.charAt(index))) && isUnitLetter(upper(text.charAt(index + 1)));
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetter(char c) {
+        c = upper(c);
+        return c >= 'A' && c <= 'Z';
+    }
+
+    // [0-9A-HJKMNP-Y] in the district patterns of PostcodeUtil, less the digits
+    private static boolean isDistrictLetter(char c) {
+        return c >= 'A' && c <= 'Y' && c != 'I' && c != 'L' && c != 'O';
+    }
+
+    // [ABD-HJLNP-UW-Z] in the unit patterns of PostcodeUtil
+    private static boolean isUnitLetter(char c) {
+        return c >= 'A' && c <= 'Z' && c != 'C' && c != 'I' && c != 'K' && c != 'M' && c != 'O' && c != 'V';
+    }
+
+    private static char upper(char c) {
+        return c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c;
+    }
+
+    private static StringBuilder appendArea(StringBuilder builder, int area) {
+        builder.append((char) ('A' + area / (LETTERS + 1)));
+        int second = area % (LETTERS + 1);
+        if (second > 0) {
+            builder.append((char) ('A' + second - 1));
+        }
+        return builder;
+    }
+
+    private static StringBuilder appendDistrict(StringBuilder builder, int district) {
+        appendArea(builder, district / DISTRICT_SUFFIXES);
+        int suffix = district % DISTRICT_SUFFIXES;
+        builder.append((char) ('0' + suffix / (1 + 10 + LETTERS)));
+        int second = suffix % (1 + 10 + LETTERS);
+        if (second > 10) {
+            builder.append((char) ('A' + second - 11));
+        } else if (second > 0) {
+            builder.append((char) ('0' + second - 1));
+        }
+        return builder;
+    }
+
+    private static boolean[] getKnownAreas() {
+        boolean[] known = new boolean[AREA_KEYS];
+        StringBuilder builder = new StringBuilder(2);
+        for (int area = 0; area < AREA_KEYS; area++) {
+            builder.setLength(0);
+            known[area] = PostcodeUtil.isKnownArea(appendArea(builder, area).toString());
+        }
+        return known;
+    }
+}
@@ -160,6 +160,14 @@ public final class PostcodeUtil {
         return matcher.find();
     }
 
+    /**
+     * @param area upper case area code, such as 'PO'
+     * @return true if the area is one of the known postcode areas
+     */
+    static boolean isKnownArea(String area) {
+        return POSTCODE_AREAS.contains(area);
+    }
+
     private static Set<String> getPostcodeAreas() {
         Set<String> postcodeAreas = new HashSet<String>();
         ClassLoader classLoader = new PostcodeUtil().getClass().getClassLoader();
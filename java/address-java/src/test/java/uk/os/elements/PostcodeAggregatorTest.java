@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 Ordnance Survey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.os.elements;
+
+import org.junit.Test;
+import uk.os.elements.address.utils.PostcodeAggregator;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PostcodeAggregatorTest {
+
+    private static final String[] UNIT_POSTCODES = { "SO16 0AS", "W1W 5QZ", "SW1A 1AA", "SW1A 0AA", "NW1 0NE",
+            "EH1 2NG", "EH1 2NG", "TR19 7AA", "NG21 9JL", "YO1 7JN" };
+
+    @Test
+    public void shouldCountUnitPostcodesAtEveryLevel() {
+        PostcodeAggregator aggregator = new PostcodeAggregator();
+        for (String postcode : UNIT_POSTCODES) {
+            assertTrue(aggregator.add(postcode));
+        }
+        assertEquals(10, aggregator.total());
+        assertEquals(2, aggregator.total("SW"));
+        assertEquals(2, aggregator.total("SW1A"));
+        assertEquals(1, aggregator.total("SW1A 0"));
+        assertEquals(2, aggregator.total("EH1 2"));
+        assertEquals(1, aggregator.total("W"));
+        assertEquals(0, aggregator.total("W1A"));
+        assertEquals(0, aggregator.total("AB"));
+    }
+
+    @Test
+    public void shouldIgnoreCaseAndSpacing() {
+        PostcodeAggregator aggregator = new PostcodeAggregator();
+        assertTrue(aggregator.add("so16 0as"));
+        assertTrue(aggregator.add("SO160AS"));
+        assertTrue(aggregator.add("  So16 0aS\t"));
+        assertEquals(3, aggregator.total("SO16 0"));
+        assertEquals(3, aggregator.total("so"));
+    }
+
+    @Test
+    public void shouldParseWithinRange() {
+        PostcodeAggregator aggregator = new PostcodeAggregator();
+        String line = "12,TR19 7AA,Land's End";
+        assertTrue(aggregator.add(line, 3, 11, 12));
+        assertEquals(12, aggregator.total("TR19 7"));
+        assertEquals(12, aggregator.total("TR"));
+    }
+
+    @Test
+    public void shouldRollUpPartialPostcodes() {
+        PostcodeAggregator aggregator = new PostcodeAggregator();
+        assertTrue(aggregator.add("NW", 1));
+        assertTrue(aggregator.add("NW1", 10));
+        assertTrue(aggregator.add("NW1 0", 100));
+        assertTrue(aggregator.add("NW1 0NE", 1000));
+        assertTrue(aggregator.add("NW10 1AA", 10000));
+        assertEquals(1100, aggregator.total("NW1 0"));
+        assertEquals(1110, aggregator.total("NW1"));
+        assertEquals(10000, aggregator.total("NW10"));
+        assertEquals(11111, aggregator.total("NW"));
+    }
+
+    @Test
+    public void shouldRejectUnlikelyPostcodes() {
+        PostcodeAggregator aggregator = new PostcodeAggregator();
+        String[] alternatives = { "", " ", "Ordnance Survey, Explorer House", "180 Great Portland Street", "BAT",
+                "BATH", "QQ1 1AA", "SO16  0AS", "SO16 0CS", "SO1I 0AS", "1SO 6AA", "SO 0AS", "SO160" };
+        for (String alternative : alternatives) {
+            assertFalse(alternative, aggregator.add(alternative));
+        }
+        assertEquals(0, aggregator.total());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldRejectReversedRange() {
+        new PostcodeAggregator().add("xx B", 3, 0, 1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldRejectRangeBeyondText() {
+        new PostcodeAggregator().add("B1", 0, 3, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnitPostcodeTotals() {
+        new PostcodeAggregator().total("SO16 0AS");
+    }
+
+    @Test
+    public void shouldMergeAggregators() {
+        PostcodeAggregator first = new PostcodeAggregator();
+        PostcodeAggregator second = new PostcodeAggregator();
+        for (int i = 0; i < UNIT_POSTCODES.length; i++) {
+            (i % 2 == 0 ? first : second).add(UNIT_POSTCODES[i]);
+        }
+        for (int i = 0; i < 5000; i++) {
+            second.add("B" + (i % 100) + " " + (i % 10) + "AA");
+        }
+        first.merge(second);
+        assertEquals(5010, first.total());
+        assertEquals(5000, first.total("B"));
+        assertEquals(50, first.total("B42"));
+        assertEquals(50, first.total("B42 2"));
+        assertEquals(2, first.total("SW1A"));
+    }
+
+    @Test
+    public void shouldVisitEachLevelInOrder() {
+        PostcodeAggregator aggregator = new PostcodeAggregator();
+        for (String postcode : UNIT_POSTCODES) {
+            aggregator.add(postcode);
+        }
+        aggregator.add("W1", 5);
+
+        final List<String> visited = new ArrayList<String>();
+        PostcodeAggregator.Visitor visitor = new PostcodeAggregator.Visitor() {
+            @Override
+            public void visit(String postcode, long total) {
+                visited.add(postcode + "=" + total);
+            }
+        };
+
+        aggregator.visitAreas(visitor);
+        assertEquals("[EH=2, NG=1, NW=1, SO=1, SW=2, TR=1, W=6, YO=1]", visited.toString());
+
+        visited.clear();
+        aggregator.visitDistricts(visitor);
+        assertEquals("[EH1=2, NG21=1, NW1=1, SO16=1, SW1A=2, TR19=1, W1=5, W1W=1, YO1=1]", visited.toString());
+
+        visited.clear();
+        aggregator.visitSectors(visitor);
+        assertEquals("[EH1 2=2, NG21 9=1, NW1 0=1, SO16 0=1, SW1A 0=1, SW1A 1=1, TR19 7=1, W1W 5=1, YO1 7=1]",
+                visited.toString());
+    }
+
+    @Test
+    public void shouldGrowBeyondInitialTableSizes() {
+        // 16 areas with 110 districts each and 10 sectors per district exceeds the initial table sizes
+        String[] areas = { "AB", "B", "BA", "CB", "E", "EH", "G", "L", "M", "NG", "NW", "SO", "SW", "TR", "W", "YO" };
+        String[] suffixes = { "", "0", "1", "2", "3", "4", "5", "6", "7", "8", "9" };
+        Random random = new Random(26L);
+        PostcodeAggregator first = new PostcodeAggregator();
+        PostcodeAggregator second = new PostcodeAggregator();
+        Map<String, Long> expectedAreas = new TreeMap<String, Long>();
+        Map<String, Long> expectedDistricts = new TreeMap<String, Long>();
+        Map<String, Long> expectedSectors = new TreeMap<String, Long>();
+        long expectedTotal = 0L;
+        for (String area : areas) {
+            for (int digit = 0; digit < 10; digit++) {
+                for (String suffix : suffixes) {
+                    String district = area + digit + suffix;
+                    long direct = 1 + random.nextInt(100);
+                    assertTrue(district, second.add(district, direct));
+                    increment(expectedAreas, area, direct);
+                    increment(expectedDistricts, district, direct);
+                    expectedTotal += direct;
+                    for (int sector = 0; sector < 10; sector++) {
+                        long amount = 1 + random.nextInt(100);
+                        PostcodeAggregator worker = sector % 2 == 0 ? first : second;
+                        assertTrue(district, worker.add(district + " " + sector + "AA", amount));
+                        increment(expectedAreas, area, amount);
+                        increment(expectedDistricts, district, amount);
+                        increment(expectedSectors, district + " " + sector, amount);
+                        expectedTotal += amount;
+                    }
+                }
+            }
+        }
+        first.merge(second);
+
+        assertEquals(expectedTotal, first.total());
+        assertEquals(16 * 110, expectedDistricts.size());
+        for (Map.Entry<String, Long> entry : expectedDistricts.entrySet()) {
+            assertEquals(entry.getValue().longValue(), first.total(entry.getKey()));
+        }
+        assertEquals(expectedAreas.toString(), visitAreas(first).toString());
+        assertEquals(expectedDistricts.toString(), visitDistricts(first).toString());
+        assertEquals(expectedSectors.toString(), visitSectors(first).toString());
+    }
+
+    @Test
+    public void shouldNotVisitZeroTotals() {
+        PostcodeAggregator aggregator = new PostcodeAggregator();
+        aggregator.add("SO16 0AS", 5);
+        aggregator.add("SO16 0AS", -5);
+        aggregator.add("EH1", 0);
+        aggregator.add("YO", 0);
+        aggregator.add("W1W 5QZ", 2);
+        assertEquals("{W=2}", visitAreas(aggregator).toString());
+        assertEquals("{W1W=2}", visitDistricts(aggregator).toString());
+        assertEquals("{W1W 5=2}", visitSectors(aggregator).toString());
+    }
+
+    private static void increment(Map<String, Long> totals, String postcode, long amount) {
+        Long total = totals.get(postcode);
+        totals.put(postcode, total == null ? amount : total + amount);
+    }
+
+    private static Map<String, Long> visitAreas(PostcodeAggregator aggregator) {
+        Collector collector = new Collector();
+        aggregator.visitAreas(collector);
+        return collector.totals;
+    }
+
+    private static Map<String, Long> visitDistricts(PostcodeAggregator aggregator) {
+        Collector collector = new Collector();
+        aggregator.visitDistricts(collector);
+        return collector.totals;
+    }
+
+    private static Map<String, Long> visitSectors(PostcodeAggregator aggregator) {
+        Collector collector = new Collector();
+        aggregator.visitSectors(collector);
+        return collector.totals;
+    }
+
+    // visitors report in ascending order, which matches the order of the string keys
+    private static class Collector implements PostcodeAggregator.Visitor {
+        private final Map<String, Long> totals = new LinkedHashMap<String, Long>();
+
+        @Override
+        public void visit(String postcode, long total) {
+            totals.put(postcode, total);
+        }
+    }
+}